@@ -0,0 +1,179 @@
+package org.eclipse.leshan.benchmark.client;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A contiguous range of local IPv4 or IPv6 addresses used to bind clients.
+ * <p>
+ * Each client gets a slot : an address of the pool (round robin on client index) with an ephemeral port. Addresses
+ * are validated once when {@link #reserve(int, int)} is called, so getting a slot is a simple array access.
+ */
+public class AddressPool {
+
+	private static final Path EPHEMERAL_PORT_RANGE = Paths.get("/proc/sys/net/ipv4/ip_local_port_range");
+	// IANA ephemeral port range, used when system one is unknown.
+	private static final int DEFAULT_NB_EPHEMERAL_PORTS = 65535 - 49152 + 1;
+	private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+	private static final Pattern IPV6_LITERAL = Pattern.compile("[0-9a-fA-F:.]*:[0-9a-fA-F:.]*");
+
+	private final BigInteger first;
+	private final BigInteger size;
+	private final int addressLength;
+
+	// Addresses really used by clients, available after reserve()
+	private InetAddress[] addresses;
+	private int nbClients;
+
+	public AddressPool(InetAddress first, InetAddress last) {
+		if (first.getAddress().length != last.getAddress().length)
+			throw new IllegalArgumentException("First and last addresses must be both IPv4 or both IPv6");
+		this.addressLength = first.getAddress().length;
+		this.first = new BigInteger(1, first.getAddress());
+		BigInteger lastValue = new BigInteger(1, last.getAddress());
+		if (lastValue.compareTo(this.first) < 0)
+			throw new IllegalArgumentException("Last address must be greater than first address");
+		this.size = lastValue.subtract(this.first).add(BigInteger.ONE);
+	}
+
+	/**
+	 * Create a pool from a CIDR block (e.g. <code>127.0.0.0/16</code>, <code>fd00::/112</code>), a range (e.g.
+	 * <code>127.0.0.1-127.0.1.255</code>) or a single address or host name.
+	 */
+	public static AddressPool parse(String value) throws UnknownHostException {
+		int slash = value.indexOf('/');
+		if (slash >= 0) {
+			InetAddress network = InetAddress.getByName(value.substring(0, slash));
+			int bitLength = network.getAddress().length * 8;
+			int prefix;
+			try {
+				prefix = Integer.parseInt(value.substring(slash + 1));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid prefix length : " + value);
+			}
+			if (prefix < 0 || prefix > bitLength)
+				throw new IllegalArgumentException("Invalid prefix length : " + value);
+
+			BigInteger hostMask = BigInteger.ONE.shiftLeft(bitLength - prefix).subtract(BigInteger.ONE);
+			BigInteger first = new BigInteger(1, network.getAddress()).andNot(hostMask);
+			BigInteger last = first.or(hostMask);
+			// Do not use IPv4 network and broadcast addresses, nor IPv6 subnet-router anycast address
+			if (bitLength == 32 && prefix <= 30) {
+				first = first.add(BigInteger.ONE);
+				last = last.subtract(BigInteger.ONE);
+			} else if (bitLength == 128 && prefix < 128) {
+				first = first.add(BigInteger.ONE);
+			}
+			return new AddressPool(toAddress(first, bitLength / 8), toAddress(last, bitLength / 8));
+		}
+
+		// a host name could contain '-', so this is a range only if both sides are IP literals
+		int dash = value.indexOf('-');
+		if (dash >= 0 && isIpLiteral(value.substring(0, dash)) && isIpLiteral(value.substring(dash + 1))) {
+			return new AddressPool(InetAddress.getByName(value.substring(0, dash)),
+					InetAddress.getByName(value.substring(dash + 1)));
+		}
+
+		InetAddress address = InetAddress.getByName(value);
+		return new AddressPool(address, address);
+	}
+
+	/**
+	 * Choose and validate addresses used by <code>nbClients</code> clients. Each used address is bound once to check
+	 * it is available on this host.
+	 *
+	 * @param nbSocketsByClient number of sockets bound by each client on its address.
+	 * @throws IllegalArgumentException if an address can not be bound or if there is not enough ephemeral ports.
+	 */
+	public void reserve(int nbClients, int nbSocketsByClient) {
+		if (nbClients <= 0)
+			throw new IllegalArgumentException("Number of clients must be positive");
+		int nbAddresses = size.min(BigInteger.valueOf(nbClients)).intValue();
+		long nbSocketsByAddress = (long) (nbClients + nbAddresses - 1) / nbAddresses * nbSocketsByClient;
+		int nbEphemeralPorts = nbEphemeralPorts();
+		if (nbSocketsByAddress > nbEphemeralPorts)
+			throw new IllegalArgumentException(String.format(
+					"%d sockets by address but only %d ephemeral ports available, use more local addresses",
+					nbSocketsByAddress, nbEphemeralPorts));
+
+		InetAddress[] addresses = new InetAddress[nbAddresses];
+		for (int i = 0; i < nbAddresses; i++) {
+			InetAddress address = toAddress(first.add(BigInteger.valueOf(i)), addressLength);
+			try {
+				new DatagramSocket(new InetSocketAddress(address, 0)).close();
+				addresses[i] = address;
+			} catch (IOException e) {
+				throw new IllegalArgumentException(
+						String.format("Unable to bind local address %s : %s", address.getHostAddress(), e.getMessage()),
+						e);
+			}
+		}
+		this.addresses = addresses;
+		this.nbClients = nbClients;
+	}
+
+	/**
+	 * @param clientIndex index of the client, starting at 1.
+	 * @return the local address to use for this client.
+	 */
+	public InetAddress getAddress(int clientIndex) {
+		return addresses[(clientIndex - 1) % addresses.length];
+	}
+
+	public int getNbAddressesUsed() {
+		return addresses.length;
+	}
+
+	public int getMinClientsByAddress() {
+		return nbClients / addresses.length;
+	}
+
+	public int getMaxClientsByAddress() {
+		return (nbClients + addresses.length - 1) / addresses.length;
+	}
+
+	public InetAddress getFirstAddressUsed() {
+		return addresses[0];
+	}
+
+	public InetAddress getLastAddressUsed() {
+		return addresses[addresses.length - 1];
+	}
+
+	private static InetAddress toAddress(BigInteger value, int length) {
+		byte[] bytes = value.toByteArray();
+		byte[] address = new byte[length];
+		// toByteArray() could add a sign byte or return less bytes than needed
+		int copyLength = Math.min(bytes.length, length);
+		System.arraycopy(bytes, bytes.length - copyLength, address, length - copyLength, copyLength);
+		try {
+			return InetAddress.getByAddress(address);
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean isIpLiteral(String value) {
+		return IPV4_LITERAL.matcher(value).matches() || IPV6_LITERAL.matcher(value).matches();
+	}
+
+	private static int nbEphemeralPorts() {
+		try {
+			List<String> lines = Files.readAllLines(EPHEMERAL_PORT_RANGE, StandardCharsets.US_ASCII);
+			String[] range = lines.get(0).trim().split("\\s+");
+			return Integer.parseInt(range[1]) - Integer.parseInt(range[0]) + 1;
+		} catch (IOException | RuntimeException e) {
+			return DEFAULT_NB_EPHEMERAL_PORTS;
+		}
+	}
+}
@@ -7,13 +7,24 @@ import static org.eclipse.leshan.client.object.Security.noSecBootstap;
 import static org.eclipse.leshan.client.object.Security.psk;
 import static org.eclipse.leshan.client.object.Security.pskBootstrap;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.elements.Connector;
 import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.ClientHandshaker;
+import org.eclipse.californium.scandium.dtls.Handshaker;
+import org.eclipse.californium.scandium.dtls.InMemoryConnectionStore;
+import org.eclipse.californium.scandium.dtls.ResumingClientHandshaker;
 
 import org.eclipse.leshan.client.californium.LeshanClient;
 import org.eclipse.leshan.client.californium.LeshanClientBuilder;
@@ -23,6 +34,7 @@ import org.eclipse.leshan.client.resource.LwM2mObjectEnabler;
 import org.eclipse.leshan.client.resource.ObjectsInitializer;
 import org.eclipse.leshan.client.servers.ServerIdentity;
 import org.eclipse.leshan.core.ResponseCode;
+import org.eclipse.leshan.core.californium.DefaultEndpointFactory;
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.model.ObjectLoader;
 import org.eclipse.leshan.core.model.ObjectModel;
@@ -38,8 +50,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 public class BenchClient {
 
@@ -55,6 +70,20 @@ public class BenchClient {
 	private Counter deregistrationSuccess;
 	private Counter deregistrationFailure;
 	private Counter deregistrationTimeout;
+	private Counter fullHandshake;
+	private Counter abbreviatedHandshake;
+	private Counter rebindings;
+	private Timer rebindingRecovery;
+	private Histogram rebindingHandshakes;
+	private Histogram rebindingRegistrations;
+
+	// Per client counts used to know the cost of a rebinding
+	private final AtomicInteger nbHandshakes = new AtomicInteger();
+	private final AtomicInteger nbRegistrations = new AtomicInteger();
+	// Not null if client was rebound and did not recover yet
+	private Long rebindingStart;
+	private int nbHandshakesAtRebinding;
+	private int nbRegistrationsAtRebinding;
 
 	private final boolean secure;
 
@@ -69,6 +98,11 @@ public class BenchClient {
 	private final static LwM2mModel model;
 
 	private LeshanClient client;
+	private volatile boolean started = false;
+	// Used to not start, stop or rebind the client concurrently
+	private final ReentrantLock lifecycleLock = new ReentrantLock();
+	// TRUE while connector is rebound, connection state must be kept during this time
+	private volatile boolean rebinding = false;
 
 	public BenchClient(LeshanClientBuilder builder, String serverURI, boolean bootstrap, String pskId, byte[] pskKey,
 			long lifetimeInSec, MetricRegistry metricRegistry) {
@@ -92,6 +126,15 @@ public class BenchClient {
 				new Counter());
 		deregistrationTimeout = registerIfNotExist(metricRegistry, "leshan.bench.client.deregistration.timeout",
 				new Counter());
+		fullHandshake = registerIfNotExist(metricRegistry, "leshan.bench.client.handshake.full", new Counter());
+		abbreviatedHandshake = registerIfNotExist(metricRegistry, "leshan.bench.client.handshake.abbreviated",
+				new Counter());
+		rebindings = registerIfNotExist(metricRegistry, "leshan.bench.client.rebinding", new Counter());
+		rebindingRecovery = registerIfNotExist(metricRegistry, "leshan.bench.client.rebinding.recovery", new Timer());
+		rebindingHandshakes = registerIfNotExist(metricRegistry, "leshan.bench.client.rebinding.handshakes",
+				new Histogram(new ExponentiallyDecayingReservoir()));
+		rebindingRegistrations = registerIfNotExist(metricRegistry, "leshan.bench.client.rebinding.registrations",
+				new Histogram(new ExponentiallyDecayingReservoir()));
 
 		// Create objects
 		ObjectsInitializer initializer = new ObjectsInitializer(model);
@@ -126,6 +169,36 @@ public class BenchClient {
 		NetworkConfig networkConfig = LeshanClientBuilder.createDefaultNetworkConfig();
 		networkConfig.set(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE, 1024);
 
+		// Count handshakes initiated by this client
+		builder.setEndpointFactory(new DefaultEndpointFactory() {
+			@Override
+			protected Connector createSecuredConnector(DtlsConnectorConfig dtlsConfig) {
+				// DTLSConnector marks all connections as resumption required when it is started on a new address. A
+				// device does not know about NAT rebinding, so this is ignored during rebind().
+				InMemoryConnectionStore connectionStore = new InMemoryConnectionStore(dtlsConfig.getMaxConnections(),
+						dtlsConfig.getStaleConnectionThreshold(), null) {
+					@Override
+					public synchronized void markAllAsResumptionRequired() {
+						if (!rebinding)
+							super.markAllAsResumptionRequired();
+					}
+				};
+				return new DTLSConnector(dtlsConfig, connectionStore) {
+					@Override
+					protected void onInitializeHandshaker(Handshaker handshaker) {
+						super.onInitializeHandshaker(handshaker);
+						if (handshaker instanceof ResumingClientHandshaker) {
+							abbreviatedHandshake.inc();
+							nbHandshakes.incrementAndGet();
+						} else if (handshaker instanceof ClientHandshaker) {
+							fullHandshake.inc();
+							nbHandshakes.incrementAndGet();
+						}
+					}
+				};
+			}
+		});
+
 		client = builder.build();
 
 		client.addObserver(new LwM2mClientObserverAdapter() {
@@ -138,6 +211,7 @@ public class BenchClient {
 			@Override
 			public void onUpdateSuccess(ServerIdentity server, UpdateRequest request) {
 				updateSuccess.inc();
+				recovered();
 			}
 
 			@Override
@@ -165,6 +239,8 @@ public class BenchClient {
 			public void onRegistrationSuccess(ServerIdentity server, RegisterRequest request,
 					String registrationID) {
 				registrationSuccess.inc();
+				nbRegistrations.incrementAndGet();
+				recovered();
 			}
 
 			@Override
@@ -262,11 +338,47 @@ public class BenchClient {
 	}
 
 	public void start() {
-		client.start();
+		lifecycleLock.lock();
+		try {
+			started = true;
+			client.start();
+		} finally {
+			lifecycleLock.unlock();
+		}
 	}
 
 	public void stop(boolean deregister) {
-		client.stop(deregister);
+		lifecycleLock.lock();
+		try {
+			started = false;
+			client.stop(deregister);
+		} finally {
+			lifecycleLock.unlock();
+		}
+	}
+
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Simulate a device reboot : stop without deregistration, forget DTLS connection state and start again.
+	 */
+	public void reboot() {
+		lifecycleLock.lock();
+		try {
+			client.stop(false);
+			for (Endpoint endpoint : client.coap().getServer().getEndpoints()) {
+				if (endpoint instanceof CoapEndpoint
+						&& ((CoapEndpoint) endpoint).getConnector() instanceof DTLSConnector) {
+					((DTLSConnector) ((CoapEndpoint) endpoint).getConnector()).clearConnectionState();
+				}
+			}
+			started = true;
+			client.start();
+		} finally {
+			lifecycleLock.unlock();
+		}
 	}
 
 	public InetSocketAddress getSocketAddress() {
@@ -292,6 +404,62 @@ public class BenchClient {
 		}
 	}
 	
+	/**
+	 * Simulate a NAT rebinding : the connector is bound to a new ephemeral port, connection state is kept, then an
+	 * update is triggered. The client recovers using the registration engine behavior (reconnect on update, resume on
+	 * connect, new registration on failure).
+	 * 
+	 * @return <code>false</code> if client is not registered, is being started or stopped, or could not be rebound.
+	 */
+	public boolean rebind() {
+		// do not wait for a start or stop in progress, the client is not in a state to be rebound anyway
+		if (!lifecycleLock.tryLock())
+			return false;
+		try {
+			if (!started || getCurrentRegisteredServer() == null)
+				return false;
+
+			Endpoint endpoint = client.coap().getServer().getEndpoint(getSocketAddress());
+			if (!(endpoint instanceof CoapEndpoint))
+				return false;
+			Connector connector = ((CoapEndpoint) endpoint).getConnector();
+
+			rebinding = true;
+			try {
+				connector.stop();
+				connector.start();
+			} catch (IOException e) {
+				LOG.warn("Unable to rebind client connector : {}", extractMessage(e));
+				return false;
+			} finally {
+				rebinding = false;
+			}
+
+			synchronized (this) {
+				// if previous rebinding is not recovered yet, cost is accumulated
+				if (rebindingStart == null) {
+					rebindingStart = System.nanoTime();
+					nbHandshakesAtRebinding = nbHandshakes.get();
+					nbRegistrationsAtRebinding = nbRegistrations.get();
+				}
+			}
+			rebindings.inc();
+			client.triggerRegistrationUpdate();
+			return true;
+		} finally {
+			lifecycleLock.unlock();
+		}
+	}
+
+	private synchronized void recovered() {
+		if (rebindingStart != null) {
+			rebindingRecovery.update(System.nanoTime() - rebindingStart, TimeUnit.NANOSECONDS);
+			rebindingHandshakes.update(nbHandshakes.get() - nbHandshakesAtRebinding);
+			rebindingRegistrations.update(nbRegistrations.get() - nbRegistrationsAtRebinding);
+			rebindingStart = null;
+		}
+	}
+
 	public ServerIdentity getCurrentRegisteredServer() {
         Map<String, ServerIdentity> registeredServers = client.getRegisteredServers();
         if (registeredServers != null && !registeredServers.isEmpty())
@@ -300,6 +468,12 @@ public class BenchClient {
     }
 
 	public void destroy(boolean deregister) {
-		client.destroy(deregister);
+		lifecycleLock.lock();
+		try {
+			started = false;
+			client.destroy(deregister);
+		} finally {
+			lifecycleLock.unlock();
+		}
 	}
 }
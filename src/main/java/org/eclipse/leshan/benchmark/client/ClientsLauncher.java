@@ -2,15 +2,25 @@ package org.eclipse.leshan.benchmark.client;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.leshan.benchmark.client.Scenario.Phase;
 import org.eclipse.leshan.client.californium.LeshanClientBuilder;
 import org.eclipse.leshan.client.engine.DefaultRegistrationEngineFactory;
 import org.eclipse.leshan.core.util.Hex;
@@ -18,6 +28,7 @@ import org.eclipse.leshan.core.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Slf4jReporter;
@@ -28,6 +39,8 @@ import com.codahale.metrics.graphite.GraphiteReporter;
 public class ClientsLauncher {
 
 	private static final Logger LOG = LoggerFactory.getLogger(BenchClient.class);
+	// A scenario action started later than this after its planned time is reported as late
+	private static final long LATE_ACTION_THRESHOLD_IN_MS = 1000;
 
 	// Configuration
 	private int nbclients = 1;
@@ -50,6 +63,14 @@ public class ClientsLauncher {
 	private String endpointPattern;
 	private String pskKeyPattern;
 	private String pskIdPattern;
+	// Could be null if no scenario should be played
+	private Scenario scenario;
+	// Could be null if there is no NAT rebinding simulation
+	private Integer nbRebindingsByMinutes;
+	// Ratio of clients which can be rebound
+	private double rebindingRatio = 1d;
+	// Could be null if clients should be bound on wildcard address
+	private AddressPool localAddressPool;
 
 	// metric registry
 	private MetricRegistry registry = new MetricRegistry();
@@ -60,11 +81,20 @@ public class ClientsLauncher {
 			.newSingleThreadScheduledExecutor(new NamedThreadFactory("Clients Launcher"));
 	private ScheduledExecutorService executorForClients = Executors.newScheduledThreadPool(400,
 			new NamedThreadFactory("coap+dtls connector"));
+	// Used to apply scenario actions (start, update, rehandshake...) on clients in parallel
+	private ScheduledExecutorService executorForActions = createActionsExecutor("Clients actions");
+	// Used for actions which could block until a CoAP timeout (reboot, deregister), so they do not delay other actions
+	private ScheduledExecutorService executorForBlockingActions = createActionsExecutor("Clients blocking actions");
 
 	// Internal state
 	private List<BenchClient> clients;
 	private int currentClientIndex = 0;
+	private List<BenchClient> rebindableClients;
+	private final AtomicInteger currentRebindableClientIndex = new AtomicInteger();
+	private Counter skippedRebindings;
 	private Slf4jReporter logReporter;
+	private List<PhaseReport> phaseReports = Collections.synchronizedList(new ArrayList<PhaseReport>());
+	private PhaseReport currentPhase;
 
 	private Map<String, String> additionalAttributes;
 
@@ -130,7 +160,25 @@ public class ClientsLauncher {
 		this.additionalAttributes = additionalAttributes;
 	}
 
+	public void setScenario(Scenario scenario) {
+		this.scenario = scenario;
+	}
+
+	public void setNbRebindingsByMinutes(int nbRebindingsByMinutes) {
+		this.nbRebindingsByMinutes = nbRebindingsByMinutes;
+	}
+
+	public void setRebindingRatio(double rebindingRatio) {
+		this.rebindingRatio = rebindingRatio;
+	}
+
+	public void setLocalAddressPool(AddressPool localAddressPool) {
+		this.localAddressPool = localAddressPool;
+	}
+
 	public void createClients() {
+		if (localAddressPool != null)
+			localAddressPool.reserve(nbclients, nbSocketsByClient());
 		clients = new ArrayList<>(nbclients);
 		for (int i = 1; i <= nbclients; i++) {
 			clients.add(createClient(i));
@@ -148,6 +196,18 @@ public class ClientsLauncher {
 			builder.setAdditionalAttributes(attrs);
 		}
 		builder.setSharedExecutor(executorForClients);
+		if (localAddressPool != null) {
+			String localAddress = localAddressPool.getAddress(i).getHostAddress();
+			builder.setLocalAddress(localAddress, 0);
+			builder.setLocalSecureAddress(localAddress, 0);
+		}
+		// Only bind the endpoint needed by the server. With bootstrap, server security mode is not known yet.
+		if (!bootstrap) {
+			if (isSecure())
+				builder.noUnsecuredEndpoint();
+			else
+				builder.noSecuredEndpoint();
+		}
 
 		// Configure Registration Engine
 		DefaultRegistrationEngineFactory engineFactory = new DefaultRegistrationEngineFactory();
@@ -163,6 +223,15 @@ public class ClientsLauncher {
 				Hex.decodeHex(String.format(pskKeyPattern, i).toCharArray()), lifetime, registry);
 	}
 
+	private boolean isSecure() {
+		return serverURI.startsWith("coaps");
+	}
+
+	private int nbSocketsByClient() {
+		// secured and unsecured endpoints are both bound if client bootstraps
+		return bootstrap ? 2 : 1;
+	}
+
 	public void start() throws InterruptedException {
 		logReporter = Slf4jReporter.forRegistry(registry).outputTo(LOG).withLoggingLevel(LoggingLevel.INFO)
 				.convertRatesTo(TimeUnit.SECONDS).convertDurationsTo(TimeUnit.MILLISECONDS).build();
@@ -188,6 +257,71 @@ public class ClientsLauncher {
 			}, testDurationInSeconds, TimeUnit.SECONDS);
 
 		// Start client
+		if (scenario != null) {
+			startScenario();
+		} else {
+			startAllClients();
+		}
+
+		// Manually send update if needed
+		if (nbUpdatesByMinutes != null) {
+			int timebetween2lifetime = (int) (60000d / nbUpdatesByMinutes);
+			executor.scheduleAtFixedRate(new Runnable() {
+
+				@Override
+				public void run() {
+					while (!clients.get(currentClientIndex).triggerUpdate(true, true)) {
+						currentClientIndex = (currentClientIndex + 1) % nbclients;
+					}
+					currentClientIndex = (currentClientIndex + 1) % nbclients;
+				}
+			}, timebetween2lifetime, timebetween2lifetime, TimeUnit.MILLISECONDS);
+		}
+
+		// Simulate NAT rebinding if needed
+		if (nbRebindingsByMinutes != null) {
+			rebindableClients = new ArrayList<>(clients);
+			Collections.shuffle(rebindableClients, ThreadLocalRandom.current());
+			rebindableClients = rebindableClients.subList(0, (int) Math.round(nbclients * rebindingRatio));
+			skippedRebindings = registry.counter("leshan.bench.client.rebinding.skipped");
+			if (!rebindableClients.isEmpty()) {
+				long timeBetween2Rebindings = (long) (60000000d / nbRebindingsByMinutes);
+				executor.scheduleAtFixedRate(new Runnable() {
+
+					@Override
+					public void run() {
+						// Search and rebinding are done by the actions thread pool.
+						executorForActions.submit(new Runnable() {
+
+							@Override
+							public void run() {
+								rebindNextClient();
+							}
+						});
+					}
+				}, timeBetween2Rebindings, timeBetween2Rebindings, TimeUnit.MICROSECONDS);
+			}
+		}
+	}
+
+	private void rebindNextClient() {
+		// Try next clients until one can be rebound (registered and not starting or stopping).
+		int nbRebindableClients = rebindableClients.size();
+		for (int i = 0; i < nbRebindableClients; i++) {
+			int index = Math.floorMod(currentRebindableClientIndex.getAndIncrement(), nbRebindableClients);
+			BenchClient client = rebindableClients.get(index);
+			try {
+				if (client.rebind())
+					return;
+			} catch (RuntimeException e) {
+				LOG.warn("Unable to rebind client", e);
+			}
+		}
+		// No client could be rebound, the target rate is not reached
+		skippedRebindings.inc();
+	}
+
+	private void startAllClients() {
 		clients.get(0).start();
 		if (nbclients > 1) {
 			executor.submit(new Runnable() {
@@ -207,21 +341,156 @@ public class ClientsLauncher {
 				}
 			});
 		}
+	}
 
-		// Manually send update if needed
-		if (nbUpdatesByMinutes != null) {
-			int timebetween2lifetime = (int) (60000d / nbUpdatesByMinutes);
-			executor.scheduleAtFixedRate(new Runnable() {
+	private void startScenario() {
+		// All phases are planned from the same origin, so a slow phase does not delay the next ones.
+		final long scenarioStart = System.nanoTime();
+		final List<Phase> phases = scenario.getPhases();
+		long phaseOffsetInSeconds = 0;
+		for (int i = 0; i < phases.size(); i++) {
+			final int phaseIndex = i;
+			final Phase phase = phases.get(i);
+			final long phaseStart = scenarioStart + TimeUnit.SECONDS.toNanos(phaseOffsetInSeconds);
+			executor.schedule(new Runnable() {
 
 				@Override
 				public void run() {
-					while (!clients.get(currentClientIndex).triggerUpdate(true, true)) {
-						currentClientIndex = (currentClientIndex + 1) % nbclients;
+					startPhase(phaseIndex, phase, phaseStart);
+				}
+			}, phaseStart - System.nanoTime(), TimeUnit.NANOSECONDS);
+			phaseOffsetInSeconds += phase.getDurationInSeconds();
+		}
+
+		// Plan the end of the scenario
+		long scenarioEnd = scenarioStart + TimeUnit.SECONDS.toNanos(phaseOffsetInSeconds);
+		executor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				// Let last actions (e.g. deregistrations) finish before the final report
+				PhaseReport lastPhase;
+				synchronized (phaseReports) {
+					lastPhase = currentPhase;
+				}
+				if (lastPhase != null && !lastPhase.awaitActions())
+					return;
+				endCurrentPhase(false);
+				LOG.info("Scenario finished.");
+				testEnd.countDown();
+			}
+		}, scenarioEnd - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	private void startPhase(int phaseIndex, final Phase phase, long phaseStart) {
+		endCurrentPhase(false);
+
+		List<BenchClient> targets = selectClients(phase);
+		LOG.info("Phase {}/{} [{}] started on {} client(s).", phaseIndex + 1, scenario.getPhases().size(), phase,
+				targets.size());
+		final PhaseReport phaseReport = new PhaseReport(phaseIndex, phase, targets.size(), snapshotCounters());
+		synchronized (phaseReports) {
+			currentPhase = phaseReport;
+		}
+
+		// Spread actions over the phase duration, each action is executed by the actions thread pools.
+		ScheduledExecutorService phaseExecutor;
+		switch (phase.getType()) {
+		case REBOOT:
+		case DEREGISTER:
+			phaseExecutor = executorForBlockingActions;
+			break;
+		default:
+			phaseExecutor = executorForActions;
+		}
+		long durationInNanos = TimeUnit.SECONDS.toNanos(phase.getDurationInSeconds());
+		int nbTargets = targets.size();
+		for (int i = 0; i < nbTargets; i++) {
+			final BenchClient client = targets.get(i);
+			// use double to avoid long overflow with long phase and big fleet
+			final long actionTime = phaseStart + (long) ((double) durationInNanos * i / nbTargets);
+			phaseReport.addAction(phaseExecutor.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					phaseReport.actionStarted(System.nanoTime() - actionTime);
+					try {
+						applyPhase(phase, client);
+					} catch (RuntimeException e) {
+						LOG.warn("Unable to apply phase [{}] on client", phase, e);
 					}
-					currentClientIndex = (currentClientIndex + 1) % nbclients;
 				}
-			}, timebetween2lifetime, timebetween2lifetime, TimeUnit.MILLISECONDS);
+			}, actionTime - System.nanoTime(), TimeUnit.NANOSECONDS));
+		}
+	}
+
+	private static ScheduledExecutorService createActionsExecutor(String name) {
+		ScheduledThreadPoolExecutor actionsExecutor = new ScheduledThreadPoolExecutor(100, new NamedThreadFactory(name));
+		// Planned actions must not be applied on destroyed clients
+		actionsExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		return actionsExecutor;
+	}
+
+	private List<BenchClient> selectClients(Phase phase) {
+		List<BenchClient> selected = new ArrayList<>();
+		switch (phase.getType()) {
+		case STEADY:
+			return selected;
+		case RAMP:
+			int nbToStart = phase.getNbClients() == null ? nbclients : phase.getNbClients();
+			for (int i = 0; i < nbclients && selected.size() < nbToStart; i++) {
+				if (!clients.get(i).isStarted())
+					selected.add(clients.get(i));
+			}
+			return selected;
+		default:
+			for (BenchClient client : clients) {
+				if (client.isStarted())
+					selected.add(client);
+			}
+			Collections.shuffle(selected, ThreadLocalRandom.current());
+			return selected.subList(0, (int) Math.round(selected.size() * phase.getRatio()));
+		}
+	}
+
+	private void applyPhase(Phase phase, BenchClient client) {
+		switch (phase.getType()) {
+		case RAMP:
+			client.start();
+			break;
+		case BURST:
+			client.triggerUpdate(false, false);
+			break;
+		case REBOOT:
+			client.reboot();
+			break;
+		case REHANDSHAKE:
+			client.triggerUpdate(true, phase.isAbbreviated());
+			break;
+		case DEREGISTER:
+			client.stop(true);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void endCurrentPhase(boolean interrupted) {
+		synchronized (phaseReports) {
+			if (currentPhase != null) {
+				currentPhase.end(snapshotCounters(), interrupted);
+				phaseReports.add(currentPhase);
+				currentPhase = null;
+			}
+		}
+	}
+
+	private Map<String, Long> snapshotCounters() {
+		Map<String, Long> snapshot = new TreeMap<>();
+		for (Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().getCount());
 		}
+		return snapshot;
 	}
 
 	public void waitToEnd() throws InterruptedException {
@@ -244,10 +513,111 @@ public class ClientsLauncher {
 			client.destroy(deregister);
 		}
 		executorForClients.shutdown();
+		executorForActions.shutdown();
+		executorForBlockingActions.shutdown();
 		executor.shutdown();
 	}
 
 	public void logReport() {
 		logReporter.report();
+		// phase in progress if test was stopped before the end of the scenario
+		endCurrentPhase(true);
+		synchronized (phaseReports) {
+			for (PhaseReport phaseReport : phaseReports) {
+				LOG.info("Phase {} [{}]{} applied to {} client(s){} : {}", phaseReport.index + 1, phaseReport.phase,
+						phaseReport.interrupted ? " interrupted," : "", phaseReport.nbTargets,
+						phaseReport.lateness(), phaseReport.deltas());
+			}
+		}
+	}
+
+	private static class PhaseReport {
+		private static final String METRIC_PREFIX = "leshan.bench.client.";
+
+		private final int index;
+		private final Phase phase;
+		private final int nbTargets;
+		private final Map<String, Long> countersAtStart;
+		private Map<String, Long> countersAtEnd;
+		private boolean interrupted;
+		private final AtomicInteger nbLateActions = new AtomicInteger();
+		private final AtomicLong maxDelayInNanos = new AtomicLong();
+		private final List<ScheduledFuture<?>> actions = new ArrayList<>();
+
+		public PhaseReport(int index, Phase phase, int nbTargets, Map<String, Long> countersAtStart) {
+			this.index = index;
+			this.phase = phase;
+			this.nbTargets = nbTargets;
+			this.countersAtStart = countersAtStart;
+		}
+
+		public void end(Map<String, Long> countersAtEnd, boolean interrupted) {
+			this.countersAtEnd = countersAtEnd;
+			this.interrupted = interrupted;
+		}
+
+		public synchronized void addAction(ScheduledFuture<?> action) {
+			actions.add(action);
+		}
+
+		/**
+		 * Wait until all actions of this phase are done or cancelled.
+		 * 
+		 * @return <code>false</code> if waiting thread was interrupted.
+		 */
+		public boolean awaitActions() {
+			List<ScheduledFuture<?>> toWait;
+			synchronized (this) {
+				toWait = new ArrayList<>(actions);
+			}
+			for (ScheduledFuture<?> action : toWait) {
+				try {
+					action.get();
+				} catch (ExecutionException | CancellationException e) {
+					// nothing to wait for this action
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public void actionStarted(long delayInNanos) {
+			long max;
+			do {
+				max = maxDelayInNanos.get();
+			} while (delayInNanos > max && !maxDelayInNanos.compareAndSet(max, delayInNanos));
+
+			if (TimeUnit.NANOSECONDS.toMillis(delayInNanos) > LATE_ACTION_THRESHOLD_IN_MS
+					&& nbLateActions.incrementAndGet() == 1) {
+				LOG.warn("Phase {} [{}] : action started {}ms after planned time, actions thread pool is overloaded.",
+						index + 1, phase, TimeUnit.NANOSECONDS.toMillis(delayInNanos));
+			}
+		}
+
+		public String lateness() {
+			if (nbLateActions.get() == 0)
+				return "";
+			return String.format(" (%d action(s) late, max delay %dms)", nbLateActions.get(),
+					TimeUnit.NANOSECONDS.toMillis(maxDelayInNanos.get()));
+		}
+
+		public String deltas() {
+			StringBuilder b = new StringBuilder();
+			for (Entry<String, Long> entry : countersAtEnd.entrySet()) {
+				Long start = countersAtStart.get(entry.getKey());
+				long delta = entry.getValue() - (start == null ? 0 : start);
+				if (delta != 0) {
+					if (b.length() > 0)
+						b.append(", ");
+					String name = entry.getKey();
+					if (name.startsWith(METRIC_PREFIX))
+						name = name.substring(METRIC_PREFIX.length());
+					b.append(name).append("=+").append(delta);
+				}
+			}
+			return b.length() == 0 ? "no activity" : b.toString();
+		}
 	}
 }
@@ -1,6 +1,9 @@
 package org.eclipse.leshan.benchmark.client;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
@@ -59,6 +62,12 @@ public class ClientsLauncherCLI implements Callable<Integer> {
 	private String pskKeyPattern = "1234567890ABCDEF%08X";
 	@Option(names = { "-a", "--additional-attributes" }, description = "Additional attribute use at registration.")
 	private Map<String, String> additionalAttributes;
+	@Option(names = { "-x",
+			"--scenario" }, description = "A scenario file describing timed phases to play (ramp, steady, burst, reboot, rehandshake, deregister) instead of the default start ramp. --number-of-client is the size of the fleet.\nDefault: no scenario.")
+	private File scenarioFile;
+	@Option(names = { "-l",
+			"--local-addresses" }, description = "Local addresses used to bind clients, clients are spread over them with an ephemeral port each. Could be a CIDR block (e.g. 127.0.0.0/16, fd00::/112), a range (e.g. 127.0.0.1-127.0.1.255) or a single address or host name.\nDefault: wildcard address.")
+	private String localAddresses;
 
 	@ArgGroup(exclusive = false)
 	private Graphite graphite;
@@ -73,6 +82,17 @@ public class ClientsLauncherCLI implements Callable<Integer> {
 		int pollingPeriodInSec = 5;
 	}
 
+	@ArgGroup(exclusive = false)
+	private NatRebinding natRebinding;
+
+	static class NatRebinding {
+
+		@Option(names = "--nat-rebinding-rate", required = true, description = "Simulate NAT rebinding: number of local port changes by minute. A rebound client recovers using its registration engine (see -r and -f).")
+		int rebindingsByMinute;
+		@Option(names = "--nat-rebinding-ratio", description = "Ratio of clients which can be rebound.\nDefault: ${DEFAULT-VALUE}.")
+		double ratio = 1d;
+	}
+
 	public static void main(String[] args) {
 		CommandLine commandLine = new CommandLine(new ClientsLauncherCLI());
 		commandLine.registerConverter(InetSocketAddress.class, new ITypeConverter<InetSocketAddress>() {
@@ -115,15 +135,66 @@ public class ClientsLauncherCLI implements Callable<Integer> {
 			launcher.setGraphitePollingPeriod(graphite.pollingPeriodInSec);
 		}
 
+		if (natRebinding != null) {
+			if (natRebinding.rebindingsByMinute <= 0) {
+				LOG.error("NAT rebinding rate must be greater than 0 : {}", natRebinding.rebindingsByMinute);
+				return 1;
+			}
+			if (natRebinding.ratio < 0 || natRebinding.ratio > 1) {
+				LOG.error("NAT rebinding ratio must be between 0 and 1 : {}", natRebinding.ratio);
+				return 1;
+			}
+			LOG.info("Simulating {} NAT rebinding(s) by minute on {}% of clients.", natRebinding.rebindingsByMinute,
+					natRebinding.ratio * 100);
+			launcher.setNbRebindingsByMinutes(natRebinding.rebindingsByMinute);
+			launcher.setRebindingRatio(natRebinding.ratio);
+		}
+		AddressPool localAddressPool = null;
+		if (localAddresses != null) {
+			try {
+				localAddressPool = AddressPool.parse(localAddresses);
+			} catch (UnknownHostException | IllegalArgumentException e) {
+				LOG.error("Invalid local addresses {} : {}", localAddresses, e.getMessage());
+				return 1;
+			}
+			launcher.setLocalAddressPool(localAddressPool);
+		}
+		Scenario scenario = null;
+		if (scenarioFile != null) {
+			try {
+				scenario = Scenario.load(scenarioFile);
+			} catch (IOException | IllegalArgumentException e) {
+				LOG.error("Unable to load scenario {} : {}", scenarioFile, e.getMessage());
+				return 1;
+			}
+			launcher.setScenario(scenario);
+		}
+
 		// TODO add option for :
 		// launcher.setNbUpdatesByMinutes(1700);
 
 		LOG.info("Creating {} client(s) for {} to {}...", nbClients, bootstrap ? "bootstraping" : "registering",
 				serverURL);
-		launcher.createClients();
+		try {
+			launcher.createClients();
+		} catch (IllegalArgumentException e) {
+			LOG.error("Unable to create clients : {}", e.getMessage());
+			return 1;
+		}
 		LOG.info("Clients range:\n [{}]", clientsRange());
-		LOG.info("Starting clients over ~{}s, then use {}s for communication period ...", startTime,
-				communicationPeriodInSeconds);
+		if (localAddressPool != null) {
+			LOG.info("Clients bound on {} local address(es) [{} .. {}], {} to {} client(s) by address.",
+					localAddressPool.getNbAddressesUsed(), localAddressPool.getFirstAddressUsed().getHostAddress(),
+					localAddressPool.getLastAddressUsed().getHostAddress(), localAddressPool.getMinClientsByAddress(),
+					localAddressPool.getMaxClientsByAddress());
+		}
+		if (scenario != null) {
+			LOG.info("Playing scenario {} ({} phases, ~{}s) with {}s for communication period ...", scenarioFile,
+					scenario.getPhases().size(), scenario.getDurationInSeconds(), communicationPeriodInSeconds);
+		} else {
+			LOG.info("Starting clients over ~{}s, then use {}s for communication period ...", startTime,
+					communicationPeriodInSeconds);
+		}
 		launcher.start();
 
 		// Report on shutdown
@@ -0,0 +1,230 @@
+package org.eclipse.leshan.benchmark.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A sequence of timed phases played by the {@link ClientsLauncher}.
+ * <p>
+ * A scenario file contains one phase by line : the phase name followed by some <code>key=value</code> parameters.
+ * Empty lines and lines starting with <code>#</code> are ignored. Phases are played one after the other, each phase
+ * lasting <code>duration</code> seconds (required, greater than 0). Parameters not used by a phase are rejected.
+ * e.g. :
+ *
+ * <pre>
+ * ramp        duration=300 clients=50000
+ * steady      duration=600
+ * reboot      duration=60  ratio=0.3
+ * burst       duration=30
+ * rehandshake duration=30  ratio=0.5 abbreviated=false
+ * deregister  duration=60
+ * </pre>
+ */
+public class Scenario {
+
+	public enum PhaseType {
+		/** Start clients which are not started yet */
+		RAMP,
+		/** Do nothing, clients only communicate with their communication period */
+		STEADY,
+		/** Trigger an update for started clients */
+		BURST,
+		/** Stop started clients without deregistration, forget DTLS state and start them again */
+		REBOOT,
+		/** Trigger an update with a new handshake for started clients */
+		REHANDSHAKE,
+		/** Stop started clients with deregistration */
+		DEREGISTER
+	}
+
+	public static class Phase {
+
+		private final PhaseType type;
+		private final long durationInSeconds;
+		private final double ratio;
+		// Could be null if all remaining clients should be started
+		private final Integer nbClients;
+		private final boolean abbreviated;
+
+		public Phase(PhaseType type, long durationInSeconds, double ratio, Integer nbClients, boolean abbreviated) {
+			this.type = type;
+			this.durationInSeconds = durationInSeconds;
+			this.ratio = ratio;
+			this.nbClients = nbClients;
+			this.abbreviated = abbreviated;
+		}
+
+		public PhaseType getType() {
+			return type;
+		}
+
+		public long getDurationInSeconds() {
+			return durationInSeconds;
+		}
+
+		/**
+		 * @return the ratio of started clients targeted by this phase (not used by {@link PhaseType#RAMP} and
+		 *         {@link PhaseType#STEADY})
+		 */
+		public double getRatio() {
+			return ratio;
+		}
+
+		/**
+		 * @return the number of clients to start for {@link PhaseType#RAMP} or <code>null</code> for all remaining
+		 *         clients.
+		 */
+		public Integer getNbClients() {
+			return nbClients;
+		}
+
+		/**
+		 * @return <code>true</code> if {@link PhaseType#REHANDSHAKE} should use abbreviated handshake.
+		 */
+		public boolean isAbbreviated() {
+			return abbreviated;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder b = new StringBuilder();
+			b.append(type.name().toLowerCase(Locale.ROOT)).append(" duration=").append(durationInSeconds).append("s");
+			switch (type) {
+			case RAMP:
+				if (nbClients != null)
+					b.append(" clients=").append(nbClients);
+				break;
+			case STEADY:
+				break;
+			case REHANDSHAKE:
+				b.append(" ratio=").append(ratio).append(" abbreviated=").append(abbreviated);
+				break;
+			default:
+				b.append(" ratio=").append(ratio);
+			}
+			return b.toString();
+		}
+	}
+
+	private final List<Phase> phases;
+
+	public Scenario(List<Phase> phases) {
+		if (phases.isEmpty())
+			throw new IllegalArgumentException("Scenario must contain at least one phase");
+		this.phases = Collections.unmodifiableList(new ArrayList<>(phases));
+	}
+
+	public List<Phase> getPhases() {
+		return phases;
+	}
+
+	public long getDurationInSeconds() {
+		long duration = 0;
+		for (Phase phase : phases) {
+			duration += phase.getDurationInSeconds();
+		}
+		return duration;
+	}
+
+	public static Scenario load(File file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			return parse(reader);
+		}
+	}
+
+	public static Scenario parse(Reader reader) throws IOException {
+		BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		List<Phase> phases = new ArrayList<>();
+		String line;
+		int lineNumber = 0;
+		while ((line = lines.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			try {
+				phases.add(parsePhase(line));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(
+						String.format("Invalid scenario at line %d [%s] : %s", lineNumber, line, e.getMessage()), e);
+			}
+		}
+		return new Scenario(phases);
+	}
+
+	private static Phase parsePhase(String line) {
+		String[] tokens = line.split("\\s+");
+
+		PhaseType type;
+		try {
+			type = PhaseType.valueOf(tokens[0].toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("unknown phase " + tokens[0]);
+		}
+
+		Long duration = null;
+		double ratio = 1d;
+		Integer nbClients = null;
+		boolean abbreviated = true;
+		for (int i = 1; i < tokens.length; i++) {
+			String[] keyAndValue = tokens[i].split("=", 2);
+			if (keyAndValue.length != 2)
+				throw new IllegalArgumentException("parameter must be key=value : " + tokens[i]);
+			String key = keyAndValue[0];
+			String value = keyAndValue[1];
+			try {
+				switch (key) {
+				case "duration":
+					duration = Long.parseLong(value);
+					// A phase without duration would start with the next one, its activity would be reported on it.
+					if (duration <= 0)
+						throw new IllegalArgumentException("duration must be greater than 0");
+					break;
+				case "ratio":
+					checkParameter(type, key, PhaseType.BURST, PhaseType.REBOOT, PhaseType.REHANDSHAKE,
+							PhaseType.DEREGISTER);
+					ratio = Double.parseDouble(value);
+					if (ratio < 0 || ratio > 1)
+						throw new IllegalArgumentException("ratio must be between 0 and 1");
+					break;
+				case "clients":
+					checkParameter(type, key, PhaseType.RAMP);
+					nbClients = Integer.parseInt(value);
+					if (nbClients < 0)
+						throw new IllegalArgumentException("clients must be positive");
+					break;
+				case "abbreviated":
+					checkParameter(type, key, PhaseType.REHANDSHAKE);
+					if (!value.equals("true") && !value.equals("false"))
+						throw new IllegalArgumentException("abbreviated must be true or false : " + value);
+					abbreviated = Boolean.parseBoolean(value);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown parameter " + key);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid number for " + key + " : " + value);
+			}
+		}
+		if (duration == null)
+			throw new IllegalArgumentException("duration is required");
+		return new Phase(type, duration, ratio, nbClients, abbreviated);
+	}
+
+	private static void checkParameter(PhaseType type, String key, PhaseType... allowedTypes) {
+		for (PhaseType allowedType : allowedTypes) {
+			if (type == allowedType)
+				return;
+		}
+		throw new IllegalArgumentException(
+				"parameter " + key + " is not allowed for " + type.name().toLowerCase(Locale.ROOT) + " phase");
+	}
+}